@@ -12,6 +12,9 @@
 #define EE_SK_TRIS  TRISA2
 #define EE_CS_TRIS  TRISA3
 
+// Locations reachable with the 6-bit address sent by ee_read_byte/ee_write_byte
+#define EE_SIZE     64
+
 void ee_init(void);
 void ee_write_enable(void);
 void ee_write_disable(void);
@@ -1,6 +1,7 @@
 
 #include <pic.h>
 #include <string.h>
+#include "eeprom93c46.h"
 
 //--------------------------------------------------
 // CONFIG
@@ -24,6 +25,9 @@ unsigned char run_chaser = 1; // 1 = running, 0 = stopped
 unsigned long next_update = 0;
 unsigned long interval = 120; // default speed (ms)
 
+// EEPROM pins share PORTA, so only claim them once an ee* command is used
+unsigned char ee_ready = 0;
+
 //--------------------------------------------------
 // UTILS
 //--------------------------------------------------
@@ -131,6 +135,103 @@ int uart_rx_ready(void)
     return RCIF;
 }
 
+void uart_put_hex8(unsigned char v)
+{
+    const char hexchars[] = "0123456789ABCDEF";
+    uart_putc(hexchars[(v >> 4) & 0x0F]);
+    uart_putc(hexchars[v & 0x0F]);
+}
+
+//--------------------------------------------------
+// EEPROM (93C46 on RA0..RA3)
+//--------------------------------------------------
+void ee_prepare(void)
+{
+    if (!ee_ready)
+    {
+        ee_init();
+        ee_ready = 1;
+    }
+}
+
+// eer <addr> <count> -> "EE aa hhhh..." lines of up to 16 bytes (all hex)
+void do_ee_read(const char *arg)
+{
+    unsigned char addr = (unsigned char)parse_hex(arg);
+    unsigned char count, i;
+
+    while (*arg && *arg != ' ') arg++;
+    while (*arg == ' ') arg++;
+    count = (unsigned char)parse_hex(arg);
+
+    ee_prepare();
+    while (count && addr < EE_SIZE)
+    {
+        uart_puts("EE ");
+        uart_put_hex8(addr);
+        uart_putc(' ');
+        for (i = 0; i < 16 && count && addr < EE_SIZE; i++, count--, addr++)
+            uart_put_hex8(ee_read_byte(addr));
+        uart_puts("\r\n");
+    }
+}
+
+// eew <addr> <hexbytes> -> writes and reads back each byte
+// Replies "EE aa OK", or "EE aa BAD bb" with bb the first address that failed
+void do_ee_write(const char *arg)
+{
+    unsigned char start = (unsigned char)parse_hex(arg);
+    unsigned char addr = start;
+    int hi, lo;
+
+    while (*arg && *arg != ' ') arg++;
+    while (*arg == ' ') arg++;
+
+    ee_prepare();
+    while ((hi = hex_digit(arg[0])) >= 0 && (lo = hex_digit(arg[1])) >= 0 && addr < EE_SIZE)
+    {
+        unsigned char value = (unsigned char)((hi << 4) | lo);
+        ee_write_byte(addr, value);
+        if (ee_read_byte(addr) != value)
+            break;
+        addr++;
+        arg += 2;
+    }
+
+    uart_puts("EE ");
+    uart_put_hex8(start);
+    if (hex_digit(arg[0]) < 0)
+    {
+        uart_puts(" OK\r\n");
+    }
+    else
+    {
+        uart_puts(" BAD ");
+        uart_put_hex8(addr);
+        uart_puts("\r\n");
+    }
+}
+
+// eesum -> "EE SUM hhhh", CRC-16/CCITT (poly 1021, init FFFF) over the whole chip
+// A mod-255 sum cannot tell 00 from FF, which is what a blank 93C46 reads
+void do_ee_sum(void)
+{
+    unsigned int crc = 0xFFFF;
+    unsigned char addr, bit;
+
+    ee_prepare();
+    for (addr = 0; addr < EE_SIZE; addr++)
+    {
+        crc ^= (unsigned int)ee_read_byte(addr) << 8;
+        for (bit = 0; bit < 8; bit++)
+            crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+    }
+    uart_puts("EE SUM ");
+    uart_put_hex8((unsigned char)(crc >> 8));
+    uart_put_hex8((unsigned char)crc);
+    uart_puts("\r\n");
+}
+
 //--------------------------------------------------
 // HELP
 //--------------------------------------------------
@@ -144,6 +245,9 @@ void do_help(void)
     uart_puts(" right - force right direction\r\n");
     uart_puts(" set <port> <value> - set port (B,C,D) to value\r\n");
     uart_puts(" help - show this help\r\n");
+    uart_puts(" eer <addr> <count> - read EEPROM (hex)\r\n");
+    uart_puts(" eew <addr> <bytes> - write EEPROM, e.g. eew 10 A5FF\r\n");
+    uart_puts(" eesum - EEPROM checksum\r\n");
     uart_puts(" set <port> <value> - set port (A,B,C,D) to value\r\n");
     uart_puts(" upp. port letters work");
     uart_puts("RA>3F");
@@ -199,6 +303,19 @@ void process_message(void)
             uart_puts("invalid speed\r\n");
         }
     }
+    // EEPROM
+    else if (strncmp(rx_buf, "eer ", 4) == 0)
+    {
+        do_ee_read(rx_buf + 4);
+    }
+    else if (strncmp(rx_buf, "eew ", 4) == 0)
+    {
+        do_ee_write(rx_buf + 4);
+    }
+    else if (strcmp(rx_buf, "eesum") == 0)
+    {
+        do_ee_sum();
+    }
     // SET command: set <port> <value> (binary, hex, or decimal)
     else if (strncmp(rx_buf, "set ", 4) == 0)
     {
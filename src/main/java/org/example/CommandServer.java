@@ -0,0 +1,566 @@
+package org.example;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the serial link and shares it between local TCP clients.
+ *
+ * Protocol, one ASCII line per message. Client to server:
+ *   - any line            queued for the device
+ *   - @SCRIPT ... @END    run the lines in between as a script
+ *   - @STOP               stop this client's running script
+ *   - @SUBSCRIBE          receive device output (default)
+ *   - @UNSUBSCRIBE        stop receiving device output
+ *   - @QUIT               close the connection
+ * Server to client:
+ *   - ok N command        the N-th queued line went out on the link
+ *   - &lt; line             a line received from the device
+ *   - ok script ...       script started / finished (after its last line went out)
+ *   - &lt; text             also script ECHO output, to the submitting client only
+ *   - err message         request rejected, or a script error
+ *
+ * Clients may pipeline as many lines as they like. Queued lines go out one
+ * client at a time in round-robin order, so a long burst from one client
+ * cannot starve the others. The PIC polls a 2-byte receive FIFO and never
+ * clears an overrun, so each line waits for the device to finish replying
+ * to the previous one before it is written.
+ */
+class CommandServer implements Closeable {
+    static final int DEFAULT_PORT = 7755;
+
+    private static final int MAX_PENDING = 256;          // queued lines before a client's reads pause
+    private static final int MAX_BACKLOG = 1 << 20;      // unsent reply bytes before a client is dropped
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_SCRIPT_LINES = 10000;
+    private static final long REPLY_QUIET_MS = 30;       // link idle this long = PIC is back in its receive loop
+    private static final long REPLY_TIMEOUT_MS = 1000;   // give up waiting for a reply that never starts
+
+    private final InputStream deviceIn;
+    private final OutputStream deviceOut;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    // Guards every client's request queue; the link writer sleeps here when all are empty
+    private final Object linkLock = new Object();
+    private int nextClient = 0;
+    private volatile boolean running = true;
+    private volatile PortTrace trace;
+
+    // Device output bookkeeping, so the writer can wait for a reply to finish
+    private final Object rxLock = new Object();
+    private long rxBytes = 0;                            // guarded by rxLock
+    private long lastRxNanos = 0;                        // guarded by rxLock
+
+    CommandServer(InputStream deviceIn, OutputStream deviceOut, int port) throws IOException {
+        this.deviceIn = deviceIn;
+        this.deviceOut = deviceOut;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Record every line written to the device, from clients and scripts alike
+     */
+    void setTrace(PortTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Run the server on the calling thread until {@link #close()} is called
+     */
+    void serve() throws IOException {
+        Thread writer = new Thread(this::linkWriter, "link-writer");
+        Thread reader = new Thread(this::linkReader, "link-reader");
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+        writer.start();
+        reader.start();
+
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(client);
+                        }
+                    } catch (IOException e) {
+                        drop(client);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed from another thread
+        } finally {
+            running = false;
+            for (Client client : clients) {
+                drop(client);
+            }
+            synchronized (linkLock) {
+                linkLock.notifyAll();
+            }
+        }
+    }
+
+    // ========== CLIENT I/O (selector thread) ==========
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Client client = new Client(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+        System.out.println("  ✓ Client connected: " + channel.getRemoteAddress());
+    }
+
+    private void read(Client client) throws IOException {
+        int n = client.channel.read(client.in);
+        if (n < 0) {
+            drop(client);
+            return;
+        }
+        client.in.flip();
+        while (client.in.hasRemaining()) {
+            char c = (char) (client.in.get() & 0xFF);
+            if (c == '\n') {
+                String line = client.partial.toString().trim();
+                client.partial.setLength(0);
+                handleLine(client, line);
+                if (!client.key.isValid()) {
+                    return;
+                }
+            } else if (c != '\r') {
+                if (client.partial.length() >= MAX_LINE) {
+                    client.send("err line too long");
+                    client.partial.setLength(0);
+                } else {
+                    client.partial.append(c);
+                }
+            }
+        }
+        client.in.clear();
+    }
+
+    private void handleLine(Client client, String line) {
+        if (client.script != null) {
+            if (line.equalsIgnoreCase("@END")) {
+                startScript(client);
+            } else if (client.script.size() >= MAX_SCRIPT_LINES) {
+                client.script = null;
+                client.send("err script too long");
+            } else {
+                client.script.add(line);
+            }
+            return;
+        }
+
+        if (line.isEmpty()) {
+            return;
+        }
+        if (!line.startsWith("@")) {
+            enqueue(client, line);
+            return;
+        }
+
+        switch (line.toUpperCase()) {
+            case "@SUBSCRIBE":
+                client.subscribed = true;
+                client.send("ok subscribed");
+                break;
+            case "@UNSUBSCRIBE":
+                client.subscribed = false;
+                client.send("ok unsubscribed");
+                break;
+            case "@SCRIPT":
+                client.script = new ArrayList<>();
+                break;
+            case "@STOP":
+                Main runner = client.runner;
+                if (runner != null) {
+                    runner.requestStop();
+                }
+                break;
+            case "@QUIT":
+                drop(client);
+                break;
+            default:
+                client.send("err unknown request " + line);
+        }
+    }
+
+    private void enqueue(Client client, String line) {
+        synchronized (linkLock) {
+            client.requests.add(line);
+            client.queued++;
+            if (client.requests.size() >= MAX_PENDING && !client.paused) {
+                // Let TCP flow control hold the client back until the link catches up
+                client.paused = true;
+                client.key.interestOps(client.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            linkLock.notifyAll();
+        }
+    }
+
+    private void flush(Client client) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = client.out.peek()) != null) {
+            int written = client.channel.write(buffer);
+            client.backlog.addAndGet(-written);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            client.out.poll();
+        }
+        client.key.interestOps(client.key.interestOps() & ~SelectionKey.OP_WRITE);
+        client.writeScheduled.set(false);
+        if (!client.out.isEmpty() && client.writeScheduled.compareAndSet(false, true)) {
+            client.key.interestOps(client.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void drop(Client client) {
+        if (!clients.remove(client)) {
+            return;
+        }
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+        Main runner = client.runner;
+        if (runner != null) {
+            runner.requestStop();
+        }
+        synchronized (linkLock) {
+            client.requests.clear();
+            linkLock.notifyAll();
+        }
+        System.out.println("  ✓ Client disconnected");
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    // ========== SCRIPTS ==========
+
+    private void startScript(Client client) {
+        List<String> source = client.script;
+        client.script = null;
+        if (client.runner != null) {
+            client.send("err script already running");
+            return;
+        }
+
+        Main runner = new Main();
+        client.runner = runner;
+        Thread thread = new Thread(() -> {
+            // ClientLink returns only once a line is on the wire, so this runs after the last one
+            runner.runScript(source, new ClientLink(client),
+                    text -> client.send("< " + text), error -> client.send("err " + error));
+            client.runner = null;
+            client.send("ok script finished");
+        }, "script-" + client.channel.socket().getPort());
+        thread.setDaemon(true);
+        thread.start();
+        client.send("ok script started (" + source.size() + " lines)");
+    }
+
+    /**
+     * Script output stream: each line the executor sends is queued for the
+     * link under the owning client, waiting while its queue is full. The
+     * write returns once the line has gone out, so WAIT times from the
+     * actual send.
+     */
+    private class ClientLink extends OutputStream {
+        private final Client client;
+        private final StringBuilder line = new StringBuilder();
+
+        ClientLink(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b != '\n' && b != '\r') {
+                line.append((char) b);
+                return;
+            }
+            if (line.length() == 0) {
+                return;
+            }
+            synchronized (linkLock) {
+                while (client.requests.size() >= MAX_PENDING && clients.contains(client)) {
+                    try {
+                        linkLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (!clients.contains(client)) {
+                    throw new IOException("Client disconnected");
+                }
+                client.requests.add(line.toString());
+                int seq = ++client.queued;
+                linkLock.notifyAll();
+
+                while (client.sent < seq && clients.contains(client) && running) {
+                    try {
+                        linkLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (client.sent < seq) {
+                    throw new IOException("Client disconnected");
+                }
+            }
+            line.setLength(0);
+        }
+    }
+
+    // ========== SERIAL LINK ==========
+
+    /**
+     * Takes one queued line per client in turn and writes it to the device
+     */
+    private void linkWriter() {
+        try {
+            while (running) {
+                Client client;
+                String line;
+                boolean resume;
+                synchronized (linkLock) {
+                    while ((client = nextReady()) == null) {
+                        if (!running) {
+                            return;
+                        }
+                        linkLock.wait();
+                    }
+                    line = client.requests.poll();
+                    resume = client.paused && client.requests.size() < MAX_PENDING / 2;
+                    if (resume) {
+                        client.paused = false;
+                    }
+                    linkLock.notifyAll();
+                }
+
+                long before;
+                synchronized (rxLock) {
+                    before = rxBytes;
+                }
+                deviceOut.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                deviceOut.flush();
+                PortTrace portTrace = trace;
+                if (portTrace != null) {
+                    portTrace.recordCommand(line);
+                }
+                synchronized (linkLock) {
+                    // Ack before waking a script waiting on this line, so its acks stay in order
+                    client.send("ok " + (++client.sent) + " " + line);
+                    linkLock.notifyAll();
+                }
+
+                awaitReply(before);
+
+                if (resume) {
+                    Client resumed = client;
+                    runOnSelector(() -> {
+                        if (resumed.key.isValid()) {
+                            resumed.key.interestOps(resumed.key.interestOps() | SelectionKey.OP_READ);
+                        }
+                    });
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("  ✗ Link write failed: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Wait until the device has answered and gone quiet again, or until it
+     * has said nothing at all for REPLY_TIMEOUT_MS
+     */
+    private void awaitReply(long before) throws InterruptedException {
+        long deadline = System.nanoTime() + REPLY_TIMEOUT_MS * 1_000_000;
+        synchronized (rxLock) {
+            while (running) {
+                long until = rxBytes == before ? deadline : lastRxNanos + REPLY_QUIET_MS * 1_000_000;
+                long remaining = until - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                rxLock.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+    }
+
+    private Client nextReady() {
+        int count = clients.size();
+        for (int i = 0; i < count; i++) {
+            int index = (nextClient + i) % count;
+            Client client = clients.get(index);
+            if (!client.requests.isEmpty()) {
+                nextClient = index + 1;
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits device output into lines and fans them out to subscribers
+     */
+    private void linkReader() {
+        StringBuilder line = new StringBuilder();
+        byte[] buffer = new byte[256];
+        try {
+            while (running) {
+                int n;
+                try {
+                    n = deviceIn.read(buffer);
+                } catch (InterruptedIOException e) {
+                    continue; // read timeout, keep polling
+                }
+                if (n < 0) {
+                    break;
+                }
+                synchronized (rxLock) {
+                    rxBytes += n;
+                    lastRxNanos = System.nanoTime();
+                    rxLock.notifyAll();
+                }
+                for (int i = 0; i < n; i++) {
+                    char c = (char) (buffer[i] & 0xFF);
+                    if (c == '\n' || c == '\r') {
+                        if (line.length() > 0) {
+                            broadcast("< " + line);
+                            line.setLength(0);
+                        }
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.out.println("  ✗ Link read failed: " + e.getMessage());
+            }
+        }
+        if (running) {
+            System.out.println("  ✗ Device link closed");
+            close();
+        }
+    }
+
+    private void broadcast(String message) {
+        for (Client client : clients) {
+            if (client.subscribed) {
+                client.send(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (linkLock) {
+            linkLock.notifyAll();
+        }
+        synchronized (rxLock) {
+            rxLock.notifyAll();
+        }
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        final StringBuilder partial = new StringBuilder();
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writeScheduled = new AtomicBoolean();
+        final Deque<String> requests = new ArrayDeque<>();   // guarded by linkLock
+        SelectionKey key;
+        volatile boolean subscribed = true;
+        volatile Main runner;
+        final AtomicInteger backlog = new AtomicInteger();
+        boolean paused;
+        int queued;                                          // guarded by linkLock
+        int sent;                                            // guarded by linkLock
+        List<String> script;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queue a line for this client; safe from any thread
+         */
+        void send(String message) {
+            byte[] bytes = (message + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            if (backlog.addAndGet(bytes.length) > MAX_BACKLOG) {
+                // Not reading its replies, don't let it hold memory forever
+                runOnSelector(() -> drop(this));
+                return;
+            }
+            out.add(ByteBuffer.wrap(bytes));
+            if (writeScheduled.compareAndSet(false, true)) {
+                runOnSelector(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+            }
+        }
+    }
+}
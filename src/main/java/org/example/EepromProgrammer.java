@@ -0,0 +1,296 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Bulk read and diff-based programming of the 93C46 behind the PIC, using
+ * the firmware's eer / eew / eesum commands.
+ *
+ * The last image known to be on the chip is cached per port. When the chip's
+ * CRC still matches the cache, programming skips the full read-back. The
+ * cache is keyed by port, not by chip, so it is only trusted after that
+ * check, and only written once the whole chip has been checked against it.
+ */
+class EepromProgrammer {
+    static final int SIZE = 64;                      // EE_SIZE in eeprom93c46.h
+
+    private static final int WRITE_BATCH = 12;       // "eew aa " + 24 hex digits fills the PIC's 32-byte line
+    private static final int MERGE_GAP = 4;          // rewriting a short gap is cheaper than a new command
+    private static final int WRITE_RETRIES = 2;
+    private static final int READ_RETRIES = 2;       // the Nano's SoftwareSerial can drop characters
+    private static final long REPLY_TIMEOUT_MS = 3000;
+    private static final long DRAIN_QUIET_MS = 200;  // link idle this long = the PIC has finished a dump
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Path cacheFile;
+
+    EepromProgrammer(InputStream in, OutputStream out, String deviceName) {
+        this.in = in;
+        this.out = out;
+        this.cacheFile = Paths.get(System.getProperty("user.home"), ".ttlknight", "eeprom",
+                deviceName.replaceAll("[^A-Za-z0-9._-]", "_") + ".bin");
+    }
+
+    /**
+     * Read the whole chip. The result is checked against the chip's CRC, and
+     * a garbled transfer is read again.
+     */
+    byte[] readImage() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                byte[] image = readLines();
+                if (checksum(image) != readChecksum()) {
+                    throw new IOException("Read-back does not match the chip's CRC");
+                }
+                saveCache(image);
+                return image;
+            } catch (EOFException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= READ_RETRIES) {
+                    throw e;
+                }
+                // The PIC may still be streaming the rest of the dump; let it finish first
+                drainUntilQuiet();
+            }
+        }
+    }
+
+    /**
+     * One "eer" transfer: "EE aa" lines of 16 bytes, in address order
+     */
+    private byte[] readLines() throws IOException {
+        byte[] image = new byte[SIZE];
+
+        send(String.format("eer 00 %02X", SIZE));
+        long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MS;
+        for (int addr = 0; addr < SIZE; ) {
+            String[] reply = readReply(deadline);
+            if (reply.length != 3 || reply[1].equals("SUM")) {
+                continue;
+            }
+            if (parseHex(reply[1]) != addr) {
+                throw new IOException("Expected EEPROM line 0x" + String.format("%02X", addr) + ", got " + reply[1]);
+            }
+            String data = reply[2];
+            int count = Math.min(16, SIZE - addr);
+            if (data.length() != 2 * count) {
+                throw new IOException("EEPROM line 0x" + reply[1] + " has " + data.length()
+                        + " hex digits, expected " + 2 * count);
+            }
+            for (int i = 0; i < data.length(); i += 2, addr++) {
+                image[addr] = (byte) parseHex(data.substring(i, i + 2));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Program an image, writing only the bytes that differ from the chip.
+     * Returns the number of bytes written.
+     */
+    int program(byte[] image) throws IOException {
+        if (image.length > SIZE) {
+            throw new IOException("Image is " + image.length + " bytes, the EEPROM holds " + SIZE);
+        }
+
+        byte[] current = loadCache();
+        if (current != null && checksum(current) != readChecksum()) {
+            System.out.println("  Cached image is stale, reading back chip");
+            current = null;
+        }
+        if (current == null) {
+            current = readImage();
+        }
+
+        byte[] target = current.clone();
+        System.arraycopy(image, 0, target, 0, image.length);
+
+        int written = 0;
+        for (int[] run : diffRuns(current, target)) {
+            for (int start = run[0]; start < run[1]; start += WRITE_BATCH) {
+                int end = Math.min(start + WRITE_BATCH, run[1]);
+                writeBatch(target, start, end);
+                written += end - start;
+            }
+        }
+
+        // Each eew only verifies its own bytes; check the whole chip before caching it
+        if (checksum(target) != readChecksum()) {
+            readImage();
+            throw new IOException("Chip does not match the image after programming");
+        }
+        saveCache(target);
+        return written;
+    }
+
+    /**
+     * Address ranges [from, to) that need writing, with short equal gaps folded in
+     */
+    private static List<int[]> diffRuns(byte[] current, byte[] target) {
+        List<int[]> runs = new ArrayList<>();
+        int[] run = null;
+        for (int i = 0; i < target.length; i++) {
+            if (current[i] == target[i]) {
+                continue;
+            }
+            if (run != null && i - run[1] <= MERGE_GAP) {
+                run[1] = i + 1;
+            } else {
+                run = new int[]{i, i + 1};
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    private void writeBatch(byte[] image, int start, int end) throws IOException {
+        StringBuilder command = new StringBuilder(String.format("eew %02X ", start));
+        for (int i = start; i < end; i++) {
+            command.append(String.format("%02X", image[i] & 0xFF));
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            send(command.toString());
+            long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MS;
+            String[] reply;
+            do {
+                reply = readReply(deadline);
+            } while (reply.length < 3 || !reply[1].equals(String.format("%02X", start)));
+
+            if (reply[2].equals("OK")) {
+                return;
+            }
+            if (attempt >= WRITE_RETRIES) {
+                String at = reply.length > 3 ? reply[3] : "??";
+                throw new IOException("Verify failed at address 0x" + at);
+            }
+        }
+    }
+
+    private int readChecksum() throws IOException {
+        send("eesum");
+        long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MS;
+        while (true) {
+            String[] reply = readReply(deadline);
+            if (reply.length == 3 && reply[1].equals("SUM")) {
+                if (reply[2].length() != 4) {
+                    throw new IOException("Garbled EEPROM checksum: " + reply[2]);
+                }
+                return parseHex(reply[2]);
+            }
+        }
+    }
+
+    /**
+     * CRC-16/CCITT (poly 0x1021, init 0xFFFF), same as the firmware's eesum
+     */
+    static int checksum(byte[] image) {
+        int crc = 0xFFFF;
+        for (byte b : image) {
+            crc ^= (b & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            crc &= 0xFFFF;
+        }
+        return crc;
+    }
+
+    private static int parseHex(String text) throws IOException {
+        try {
+            return Integer.parseInt(text, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Garbled EEPROM reply: " + text);
+        }
+    }
+
+    // ========== LINK ==========
+
+    private void send(String command) throws IOException {
+        // Drop anything left over (greeting, chaser chatter) so replies line up
+        while (in.available() > 0) {
+            in.read();
+        }
+        out.write((command + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Discard device output until the link has been idle for DRAIN_QUIET_MS
+     */
+    private void drainUntilQuiet() throws IOException {
+        long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MS;
+        long quietSince = System.currentTimeMillis();
+        while (System.currentTimeMillis() - quietSince < DRAIN_QUIET_MS) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Device keeps talking, cannot resynchronise");
+            }
+            if (in.available() > 0) {
+                while (in.available() > 0) {
+                    in.read();
+                }
+                quietSince = System.currentTimeMillis();
+            } else {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Next "EE ..." reply split on spaces; the PIC's echo and other output are skipped
+     */
+    private String[] readReply(long deadline) throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (System.currentTimeMillis() < deadline) {
+            int c;
+            try {
+                c = in.read();
+            } catch (InterruptedIOException e) {
+                continue; // serial read timeout
+            }
+            if (c < 0) {
+                throw new EOFException("Link closed");
+            }
+            if (c != '\r' && c != '\n') {
+                line.append((char) c);
+            } else if (line.length() > 0) {
+                String text = line.toString().trim();
+                line.setLength(0);
+                if (text.startsWith("EE ")) {
+                    return text.split("\\s+");
+                }
+            }
+        }
+        throw new IOException("No reply from the PIC");
+    }
+
+    // ========== CACHE ==========
+
+    private byte[] loadCache() {
+        try {
+            byte[] cached = Files.readAllBytes(cacheFile);
+            return cached.length == SIZE ? cached : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void saveCache(byte[] image) {
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Files.write(cacheFile, image);
+        } catch (IOException e) {
+            System.out.println("  ✗ Could not update EEPROM cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * In-process stand-in for the tester on the other end of the serial link.
+ * Every line written to it is answered through its input stream; the default
+ * answer echoes the line back like a loopback plug.
+ */
+class LoopbackDevice implements Closeable {
+    private final StringBuilder pendingLine = new StringBuilder();
+    private final Object lock = new Object();
+    private byte[] replies = new byte[1024];
+    private int head = 0;
+    private int tail = 0;
+    private boolean closed = false;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (lock) {
+                while (head == tail && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (head == tail) {
+                    return -1;
+                }
+                int n = Math.min(len, tail - head);
+                System.arraycopy(replies, head, b, off, n);
+                head += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (lock) {
+                return tail - head;
+            }
+        }
+
+        @Override
+        public void close() {
+            LoopbackDevice.this.close();
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            if (closed) {
+                throw new IOException("Device closed");
+            }
+            if (b == '\r' || b == '\n') {
+                if (pendingLine.length() > 0) {
+                    String line = pendingLine.toString();
+                    pendingLine.setLength(0);
+                    reply(respond(line));
+                }
+            } else {
+                pendingLine.append((char) b);
+            }
+        }
+
+        @Override
+        public void close() {
+            LoopbackDevice.this.close();
+        }
+    };
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * Answer one received command line. Override to emulate firmware.
+     */
+    protected String respond(String line) {
+        return line + "\r\n";
+    }
+
+    private void reply(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        synchronized (lock) {
+            if (head == tail) {
+                head = 0;
+                tail = 0;
+            }
+            if (tail + bytes.length > replies.length) {
+                byte[] grown = new byte[Math.max(replies.length * 2, tail - head + bytes.length)];
+                System.arraycopy(replies, head, grown, 0, tail - head);
+                tail -= head;
+                head = 0;
+                replies = grown;
+            }
+            System.arraycopy(bytes, 0, replies, tail, bytes.length);
+            tail += bytes.length;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.example;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.*;
 
 /**
@@ -22,16 +24,51 @@ public class Main {
 
     // Serial communication
     private Object serialPort;
+    private String portName;
     private InputStream serialIn;
     private OutputStream serialOut;
-    private final boolean connected = false;
+    private boolean connected = false;
     private Thread readerThread;
+    private PortTrace portTrace;
+
+    // Link recovery: last value sent per port/chaser setting, replayed after a reconnect
+    private static final long RECONNECT_INITIAL_MS = 500;
+    private static final long RECONNECT_MAX_MS = 30000;
+    private static final int RECONNECT_ATTEMPTS = 12;
+    private static final long BOOT_DELAY_MS = 2000;   // opening the port resets the Nano
+    private static final long REPLY_QUIET_MS = 30;    // link idle this long = PIC is back in its receive loop
+    private static final long REPLY_TIMEOUT_MS = 1000;
+    private final Map<String, String> deviceState = new LinkedHashMap<>();
+    private boolean linkLost = false;
 
     // Script processing
     private final Map<String, Integer> labels = new HashMap<>();
     private final Map<String, String> variables = new HashMap<>();
     private final Stack<Integer> callStack = new Stack<>();
-    private final boolean stopExecution = false;
+    private volatile boolean stopExecution = false;
+
+    // Watch mode: the watcher thread hands over re-parsed programs, the executor swaps them in at safe points
+    private final Object swapLock = new Object();
+    private volatile ScriptProgram pendingProgram;
+    private volatile boolean watching = false;
+    private ScriptProgram runningProgram;
+
+    // Checkpointing of file-based runs
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+    private Path checkpointFile;
+    private String checkpointScript;
+    private int checkpointHash;
+    private long lastCheckpoint;
+    private int executingIndex;
+
+    // Simulation: no console output, WAIT takes no time
+    private boolean quiet = false;
+    private boolean virtualTime = false;
+    private static int exitStatus = 0;
+
+    // Server mode: script ECHO text and errors go to the submitting client, not the console
+    private Consumer<String> echoSink;
+    private Consumer<String> errorSink;
 
     // Regex patterns
     private static final Pattern LABEL_PATTERN = Pattern.compile("^(\\d+)->(\\w+)$");
@@ -44,11 +81,13 @@ public class Main {
     private static final Pattern COMMENT_PATTERN = Pattern.compile("^\\s*(#|//).*$");
     private static final Pattern EMPTY_PATTERN = Pattern.compile("^\\s*$");
     private static final Pattern BAUD_COMMAND_PATTERN = Pattern.compile("^BAUD\\s+(\\d+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ARITHMETIC_PATTERN = Pattern.compile("^(-?\\d+)\\s*([+-])\\s*(\\d+)$");
 
     // Execution state
-    private final int loopCounter = 0;
-    private final int loopMax = 0;
-    private final boolean inLoop = false;
+    private int loopCounter = 0;
+    private int loopMax = 0;
+    private int loopStart = 0;
+    private boolean inLoop = false;
 
     public static void main(String[] args) {
         System.out.println("╔══════════════════════════════════════════╗");
@@ -64,6 +103,24 @@ public class Main {
                 return;
             }
 
+            if (args.length > 1 && args[0].equals("--resume")) {
+                processor.resumeFromCheckpoint(Paths.get(args[1]), null);
+                return;
+            }
+
+            if (args.length > 1 && args[0].equals("--test")) {
+                boolean update = args.length > 2 && args[2].equals("--update");
+                if (!new RegressionRunner(Paths.get(args[1]), update).run()) {
+                    exitStatus = 1;
+                }
+                return;
+            }
+
+            if (args.length > 0 && args[0].equals("--server")) {
+                processor.runServer(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+
             if (args.length > 0) {
                 processor.processArgs(args);
             } else {
@@ -73,8 +130,12 @@ public class Main {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            processor.stopTrace();
             processor.disconnect();
             System.out.println("\nGoodbye!");
+            if (exitStatus != 0) {
+                System.exit(exitStatus);
+            }
         }
     }
 
@@ -129,6 +190,9 @@ public class Main {
         System.out.println("  any command      Send to Arduino");
         System.out.println("  baud <rate>      Change baud rate");
         System.out.println("  info             Show connection info");
+        System.out.println("  eeprom dump <f>  Save PIC's 93C46 to file");
+        System.out.println("  eeprom program <f>  Write file to 93C46 (changes only)");
+        System.out.println("  trace <f.vcd>    Record port writes (trace off to stop)");
         System.out.println("  exit             Return to main menu");
 
         System.out.println("\nCOMMAND MODE COMMANDS (> prompt):");
@@ -198,6 +262,44 @@ public class Main {
         System.out.println("\n  STOP");
         System.out.println("    Immediately stops script execution");
         System.out.println("    Useful for error conditions");
+        System.out.println("    Must be upper case; lower-case 'stop' is sent to the PIC");
+
+        System.out.println("\n〚 EEPROM (93C46 ON THE PIC) 〛");
+        System.out.println("  eeprom dump <file>");
+        System.out.println("    Reads all " + EepromProgrammer.SIZE + " bytes into a binary file");
+        System.out.println("  eeprom program <file>");
+        System.out.println("    Writes a binary image, sending only bytes that differ");
+        System.out.println("    Every batch is read back and verified by the PIC");
+        System.out.println("    The whole chip is CRC-checked before the cache is updated");
+        System.out.println("    The last image is cached per port in ~/.ttlknight/eeprom");
+        System.out.println("  Note: the EEPROM uses RA0-RA3, avoid 'set A' while using it");
+
+        System.out.println("\n〚 CHECKPOINT & RESUME 〛");
+        System.out.println("  Script runs save their state to <script>.ckpt every few seconds:");
+        System.out.println("    line, variables, call stack, loop counters, last port values");
+        System.out.println("  If the USB link drops, the port is reopened with backoff, the");
+        System.out.println("  last port values are sent again and the script carries on");
+        System.out.println("  A killed run continues with --resume <script>.ckpt, or by");
+        System.out.println("  choosing the script again from the menu");
+        System.out.println("  The checkpoint is removed when the script finishes");
+
+        System.out.println("\n〚 PORT TRACE 〛");
+        System.out.println("  trace <file.vcd>");
+        System.out.println("    Records every set/start/stop/left/right/speed sent to the PIC");
+        System.out.println("    with a nanosecond timestamp, as a VCD file for GTKWave");
+        System.out.println("    Signals: PIC ports A-D, chaser run/direction/speed");
+        System.out.println("    Values are what was sent; the chaser pattern itself is not");
+        System.out.println("    known to the host. 'trace off' closes the file");
+        System.out.println("  In server mode start with --trace <file.vcd> to record what");
+        System.out.println("  every client and server script sends");
+
+        System.out.println("\n〚 WATCH MODE 〛");
+        System.out.println("  Runs a script and reloads it whenever the file is saved");
+        System.out.println("    Only the edited lines are re-parsed");
+        System.out.println("    The new version takes over at the next WAIT, ENDLOOP or GOTO");
+        System.out.println("    Variables, loop and call state are kept");
+        System.out.println("    A finished script is rerun after the next save");
+        System.out.println("    Press Enter to leave watch mode");
 
         System.out.println("\n〚 COMMENTS 〛");
         System.out.println("  # Comment text");
@@ -286,12 +388,41 @@ public class Main {
         System.out.println("  --list, -l       List available serial ports");
         System.out.println("  --baud <rate>    Specify baud rate");
         System.out.println("  --file <port> <script>  Direct script execution");
+        System.out.println("  --resume <file.ckpt>    Continue a killed script run");
+        System.out.println("  --test <dir> [--update] Run script suite against simulated testers");
+        System.out.println("  --server <port> [tcp]   Share the port with local TCP clients");
+        System.out.println("  --server --loopback [tcp]  Server against a built-in echo device");
+        System.out.println("  --server ... --trace <f.vcd>  Record the server's port writes");
 
         System.out.println("\nExamples:");
         System.out.println("  java ArduinoScriptProcessor --list");
         System.out.println("  java ArduinoScriptProcessor --baud 115200 /dev/ttyUSB0");
         System.out.println("  java ArduinoScriptProcessor --file /dev/ttyUSB0 script.txt");
         System.out.println("  java ArduinoScriptProcessor 19200 /dev/ttyACM0");
+        System.out.println("  java ArduinoScriptProcessor --server /dev/ttyUSB0 " + CommandServer.DEFAULT_PORT);
+
+        System.out.println("\nRegression Tests:");
+        System.out.println("  --test <dir> runs every *.txt script in <dir> in parallel, each");
+        System.out.println("  against its own simulated Nano/PIC (set, start, stop, left,");
+        System.out.println("  right, speed, help, eer/eew/eesum). WAITs take no time.");
+        System.out.println("  Final port state and device replies are compared with");
+        System.out.println("  <script>.txt.golden; a missing golden file is created.");
+        System.out.println("  --update rewrites all golden files. Exit status 1 on failure.");
+
+        System.out.println("\nServer Mode:");
+        System.out.println("  Holds the serial port so several tools can share it without");
+        System.out.println("  reconnecting (which resets the Nano). Listens on 127.0.0.1.");
+        System.out.println("  Send one command per line; replies:");
+        System.out.println("    ok <n> <cmd>       your n-th command was sent");
+        System.out.println("    < <text>           output from the device, or your script's ECHO");
+        System.out.println("    err <message>      rejected request or script error");
+        System.out.println("    ok script finished after the script's last line was sent");
+        System.out.println("  Requests:");
+        System.out.println("    @SCRIPT ... @END   run the lines in between as a script");
+        System.out.println("    @STOP              stop your running script");
+        System.out.println("    @SUBSCRIBE / @UNSUBSCRIBE   device output on/off");
+        System.out.println("    @QUIT              disconnect");
+        System.out.println("  Example: nc localhost " + CommandServer.DEFAULT_PORT);
     }
 
     /**
@@ -495,11 +626,21 @@ public class Main {
             return;
         }
 
+        Path checkpoint = ScriptCheckpoint.pathFor(Paths.get(filename));
+        if (Files.exists(checkpoint)) {
+            System.out.print("Unfinished run found (" + checkpoint + "). Resume? (Y/n): ");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("n")) {
+                resumeFromCheckpoint(checkpoint, filename);
+                return;
+            }
+        }
+
         System.out.println("\nExecution modes:");
         System.out.println("  1. Normal execution");
         System.out.println("  2. Step-by-step (debug)");
         System.out.println("  3. Dry run (parse only)");
-        System.out.print("\nChoice (1-3): ");
+        System.out.println("  4. Watch mode (reload on save)");
+        System.out.print("\nChoice (1-4): ");
 
         String choice = scanner.nextLine().trim();
 
@@ -517,6 +658,9 @@ public class Main {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "4":
+                watchScriptFile(filename);
+                break;
             default:
                 System.out.println("Invalid choice");
         }
@@ -554,16 +698,92 @@ public class Main {
                 System.out.println("  • Type any command to send to Arduino");
                 System.out.println("  • Use 'baud <rate>' to change baud rate");
                 System.out.println("  • Use 'info' to see connection details");
+                System.out.println("  • Use 'eeprom dump|program <file>' for the 93C46");
+                System.out.println("  • Use 'trace <file.vcd>' to record port writes");
                 System.out.println("  • Use 'exit' to return to main menu");
                 System.out.println("  • Arduino should echo responses");
             } else if (input.toLowerCase().startsWith("baud ")) {
                 handleBaudCommand(input);
+            } else if (input.toLowerCase().startsWith("eeprom ")) {
+                handleEepromCommand(input);
+            } else if (input.toLowerCase().startsWith("trace ")) {
+                handleTraceCommand(input);
             } else if (!input.isEmpty()) {
                 sendToArduino(input);
             }
         }
     }
 
+    /**
+     * Handle eeprom dump/program command
+     */
+    private void handleEepromCommand(String input) {
+        String[] parts = input.trim().split("\\s+", 3);
+        if (parts.length < 3) {
+            System.out.println("Usage: eeprom dump <file> | eeprom program <file>");
+            return;
+        }
+        if (!connected) {
+            System.out.println("Not connected.");
+            return;
+        }
+
+        EepromProgrammer programmer = new EepromProgrammer(serialIn, serialOut, portName);
+        Path file = Paths.get(parts[2]);
+        long started = System.currentTimeMillis();
+        try {
+            if (parts[1].equalsIgnoreCase("dump")) {
+                Files.write(file, programmer.readImage());
+                System.out.println("✓ Saved " + EepromProgrammer.SIZE + " bytes to " + file);
+            } else if (parts[1].equalsIgnoreCase("program")) {
+                int written = programmer.program(Files.readAllBytes(file));
+                System.out.println("✓ Programmed " + file + ": " + written + " byte(s) changed");
+            } else {
+                System.out.println("Usage: eeprom dump <file> | eeprom program <file>");
+                return;
+            }
+            System.out.println("  (" + (System.currentTimeMillis() - started) + " ms)");
+        } catch (IOException e) {
+            System.out.println("✗ EEPROM " + parts[1] + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handle trace <file.vcd> / trace off
+     */
+    private void handleTraceCommand(String input) {
+        String arg = input.trim().substring(5).trim();
+        if (arg.isEmpty()) {
+            System.out.println("Usage: trace <file.vcd> | trace off");
+            return;
+        }
+
+        stopTrace();
+        if (arg.equalsIgnoreCase("off")) {
+            return;
+        }
+        try {
+            portTrace = new PortTrace(Paths.get(arg));
+            System.out.println("✓ Recording port writes to " + arg);
+        } catch (IOException e) {
+            System.out.println("✗ Could not open trace file: " + e.getMessage());
+        }
+    }
+
+    private void stopTrace() {
+        PortTrace trace = portTrace;
+        if (trace == null) {
+            return;
+        }
+        portTrace = null;
+        try {
+            trace.close();
+            System.out.println("✓ Trace closed (" + trace.getRecorded() + " events)");
+        } catch (IOException e) {
+            System.out.println("✗ Could not close trace: " + e.getMessage());
+        }
+    }
+
     /**
      * Handle baud rate change command
      */
@@ -573,10 +793,14 @@ public class Main {
             int newBaud = Integer.parseInt(parts[1]);
             if (isValidBaudRate(newBaud)) {
                 currentBaudRate = newBaud;
-                System.out.println("✓ Baud rate changed to: " + currentBaudRate);
-                if (connected) {
-                    System.out.println("Note: Disconnect and reconnect to apply new rate.");
+                if (!quiet) {
+                    System.out.println("✓ Baud rate changed to: " + currentBaudRate);
+                    if (connected) {
+                        System.out.println("Note: Disconnect and reconnect to apply new rate.");
+                    }
                 }
+            } else if (quiet) {
+                scriptError("Unsupported baud rate " + newBaud);
             } else {
                 System.out.println("✗ Unsupported baud rate.");
                 System.out.println("Supported: " + Arrays.toString(SUPPORTED_BAUD_RATES));
@@ -635,69 +859,728 @@ public class Main {
     }
 
     private boolean isValidBaudRate(int baudRate) {
-        // ... (same as before)
+        for (int rate : SUPPORTED_BAUD_RATES) {
+            if (rate == baudRate) {
+                return true;
+            }
+        }
         return false;
     }
 
     private void connect(String portName) {
-        // ... (same as before)
+        try {
+            Class<?> portClass = Class.forName("com.fazecast.jSerialComm.SerialPort");
+            Object port = portClass.getMethod("getCommPort", String.class).invoke(null, portName);
+            portClass.getMethod("setComPortParameters", int.class, int.class, int.class, int.class)
+                    .invoke(port, currentBaudRate, 8, 1, 0);
+            // Semi-blocking reads with a 100ms timeout so reader threads can notice shutdown
+            portClass.getMethod("setComPortTimeouts", int.class, int.class, int.class)
+                    .invoke(port, 0x1, 100, 0);
+
+            if (!(Boolean) portClass.getMethod("openPort").invoke(port)) {
+                System.out.println("✗ Could not open " + portName);
+                return;
+            }
+
+            serialPort = port;
+            this.portName = portName;
+            serialIn = (InputStream) portClass.getMethod("getInputStream").invoke(port);
+            serialOut = (OutputStream) portClass.getMethod("getOutputStream").invoke(port);
+            connected = true;
+            System.out.println("✓ Connected to " + portName + " at " + currentBaudRate + " baud");
+        } catch (ClassNotFoundException e) {
+            System.out.println("✗ jSerialComm not found on the classpath");
+        } catch (Exception e) {
+            System.out.println("✗ Connection failed: " + e.getMessage());
+        }
     }
 
     private void testConnection() {
         // ... (same as before)
     }
 
+    /**
+     * Execute a single script line and return the index of the next line to run
+     */
     private int executeLine(List<ScriptLine> script, ScriptLine line, int currentIndex) {
-        // ... (same as before)
-        return 0;
+        String command = line.command;
+        if (command.isEmpty() || line.label != null) {
+            return currentIndex + 1;
+        }
+
+        Matcher m;
+        if ((m = GOTO_PATTERN.matcher(command)).matches()) {
+            return jumpTo(m.group(1), line, script.size());
+        } else if ((m = WAIT_PATTERN.matcher(command)).matches()) {
+            waitMillis(Long.parseLong(m.group(1)));
+        } else if ((m = SET_PATTERN.matcher(command)).matches()) {
+            variables.put(m.group(1), evaluateValue(substituteVariables(m.group(2))));
+        } else if ((m = IF_PATTERN.matcher(command)).matches()) {
+            if (evaluateCondition(substituteVariables(m.group(1)))) {
+                return jumpTo(m.group(2), line, script.size());
+            }
+        } else if ((m = LOOP_PATTERN.matcher(command)).matches()) {
+            loopMax = Integer.parseInt(m.group(1));
+            loopCounter = 0;
+            loopStart = currentIndex + 1;
+            inLoop = loopMax > 0;
+        } else if (command.equalsIgnoreCase("ENDLOOP")) {
+            if (inLoop && ++loopCounter < loopMax) {
+                return loopStart;
+            }
+            inLoop = false;
+        } else if ((m = CALL_PATTERN.matcher(command)).matches()) {
+            callStack.push(currentIndex + 1);
+            return jumpTo(m.group(1), line, script.size());
+        } else if (command.equalsIgnoreCase("RETURN")) {
+            return callStack.isEmpty() ? script.size() : callStack.pop();
+        } else if ((m = BAUD_COMMAND_PATTERN.matcher(command)).matches()) {
+            handleBaudCommand("baud " + m.group(1));
+        } else if (command.toUpperCase().startsWith("ECHO")) {
+            echo(substituteVariables(command.substring(4).trim()));
+        } else if (command.equals("STOP")) {
+            // Upper case only: lower-case "stop" is the PIC's chaser command
+            stopExecution = true;
+            return script.size();
+        } else {
+            sendToArduino(substituteVariables(command));
+        }
+        return currentIndex + 1;
+    }
+
+    private int jumpTo(String label, ScriptLine line, int scriptSize) {
+        Integer target = labels.get(label);
+        if (target == null) {
+            scriptError("Line " + line.lineNumber + ": unknown label " + label);
+            stopExecution = true;
+            return scriptSize;
+        }
+        return target;
+    }
+
+    private void echo(String text) {
+        if (echoSink != null) {
+            echoSink.accept(text);
+        } else if (!quiet) {
+            System.out.println("  " + text);
+        }
+    }
+
+    private void scriptError(String message) {
+        if (errorSink != null) {
+            errorSink.accept(message);
+        } else {
+            System.out.println("  ✗ " + message);
+        }
+    }
+
+    /**
+     * WAIT is a swap point: in watch mode a saved edit ends the wait early
+     */
+    private void waitMillis(long millis) {
+        if (virtualTime) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (swapLock) {
+            long remaining;
+            while (!stopExecution && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (watching && pendingProgram != null) {
+                    return;
+                }
+                try {
+                    swapLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopExecution = true;
+                }
+            }
+        }
+    }
+
+    private String substituteVariables(String text) {
+        for (Map.Entry<String, String> entry : variables.entrySet()) {
+            text = text.replace("${" + entry.getKey() + "}", entry.getValue());
+        }
+        return text;
+    }
+
+    /**
+     * Strip quotes and fold simple "a+b" / "a-b" integer arithmetic
+     */
+    private String evaluateValue(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        Matcher m = ARITHMETIC_PATTERN.matcher(value);
+        if (m.matches()) {
+            long left = Long.parseLong(m.group(1));
+            long right = Long.parseLong(m.group(3));
+            return String.valueOf(m.group(2).equals("+") ? left + right : left - right);
+        }
+        return value;
     }
 
     private void executeScriptFile(String filename) {
-        // ... (same as before)
+        try {
+            resetExecutionState();
+            List<String> source = Files.readAllLines(Paths.get(filename));
+            List<ScriptLine> script = parseScriptFile(filename, false);
+            System.out.println("\n▶ Executing " + filename + " (" + script.size() + " lines)");
+            runCheckpointed(Paths.get(filename), source, script, 0);
+        } catch (IOException e) {
+            System.out.println("✗ Could not read script: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a script file from {@code start}, checkpointing as it goes. The
+     * checkpoint is kept only if the run ends because the link was lost.
+     */
+    private void runCheckpointed(Path file, List<String> source, List<ScriptLine> script, int start) {
+        checkpointFile = ScriptCheckpoint.pathFor(file);
+        checkpointScript = file.toAbsolutePath().toString();
+        checkpointHash = source.hashCode();
+        lastCheckpoint = System.currentTimeMillis();
+        linkLost = false;
+        try {
+            executeScript(script, start, script.size());
+        } finally {
+            Path finished = checkpointFile;
+            checkpointFile = null;
+            if (linkLost) {
+                System.out.println("✗ Script halted, resume later with --resume " + finished);
+            } else {
+                try {
+                    Files.deleteIfExists(finished);
+                } catch (IOException ignored) {
+                }
+                System.out.println("✓ Script finished");
+            }
+        }
+    }
+
+    private void saveCheckpoint(int index) {
+        ScriptCheckpoint checkpoint = new ScriptCheckpoint();
+        checkpoint.script = checkpointScript;
+        checkpoint.scriptHash = checkpointHash;
+        checkpoint.index = index;
+        checkpoint.variables.putAll(variables);
+        checkpoint.callStack.addAll(callStack);
+        checkpoint.loopCounter = loopCounter;
+        checkpoint.loopMax = loopMax;
+        checkpoint.loopStart = loopStart;
+        checkpoint.inLoop = inLoop;
+        checkpoint.deviceState.putAll(deviceState);
+        checkpoint.portName = portName;
+        checkpoint.baudRate = currentBaudRate;
+        checkpoint.savedAt = System.currentTimeMillis();
+        try {
+            checkpoint.save(checkpointFile);
+        } catch (IOException e) {
+            System.out.println("  ✗ Could not save checkpoint: " + e.getMessage());
+        }
+        lastCheckpoint = checkpoint.savedAt;
+    }
+
+    /**
+     * Continue a run from its checkpoint file. {@code filename} overrides the
+     * script path recorded in the checkpoint.
+     */
+    private void resumeFromCheckpoint(Path file, String filename) {
+        ScriptCheckpoint checkpoint;
+        List<String> source;
+        try {
+            checkpoint = ScriptCheckpoint.load(file);
+            source = Files.readAllLines(Paths.get(filename != null ? filename : checkpoint.script));
+        } catch (IOException e) {
+            System.out.println("✗ Could not resume: " + e.getMessage());
+            return;
+        }
+        if (source.hashCode() != checkpoint.scriptHash) {
+            System.out.println("✗ Script changed since the checkpoint was taken; run it from the start");
+            return;
+        }
+
+        resetExecutionState();
+        if (!connected) {
+            if (checkpoint.portName.isEmpty()) {
+                System.out.println("✗ Checkpoint has no port, connect first");
+                return;
+            }
+            currentBaudRate = checkpoint.baudRate;
+            connect(checkpoint.portName);
+            if (!connected) {
+                return;
+            }
+            pause(BOOT_DELAY_MS);
+        }
+
+        ScriptProgram program = ScriptProgram.parse(source);
+        labels.putAll(program.labels);
+        variables.putAll(checkpoint.variables);
+        callStack.addAll(checkpoint.callStack);
+        loopCounter = checkpoint.loopCounter;
+        loopMax = checkpoint.loopMax;
+        loopStart = checkpoint.loopStart;
+        inLoop = checkpoint.inLoop;
+        deviceState.clear();
+        deviceState.putAll(checkpoint.deviceState);
+
+        try {
+            restoreDeviceState();
+        } catch (IOException e) {
+            System.out.println("✗ Could not restore port state: " + e.getMessage());
+            return;
+        }
+
+        int index = checkpoint.index;
+        System.out.println("\n▶ Resuming " + checkpoint.script + " at line "
+                + (index < program.lines.size() ? program.lines.get(index).lineNumber : program.lines.size())
+                + " (checkpoint from " + new Date(checkpoint.savedAt) + ")");
+        runCheckpointed(Paths.get(checkpoint.script), source, program.lines, index);
     }
 
     private List<ScriptLine> parseScriptFile(String filename, boolean dryRun) throws IOException {
-        // ... (same as before)
-        return null;
+        ScriptProgram program = ScriptProgram.parse(Files.readAllLines(Paths.get(filename)));
+        labels.clear();
+        labels.putAll(program.labels);
+
+        if (dryRun) {
+            System.out.println("\n✓ Parsed " + filename + ": " + program.lines.size()
+                    + " lines, " + program.labels.size() + " labels");
+            for (Map.Entry<String, Integer> entry : program.labels.entrySet()) {
+                System.out.println("  " + entry.getKey() + " → line "
+                        + program.lines.get(entry.getValue()).lineNumber);
+            }
+        }
+        return program.lines;
     }
 
     private void executeScript(List<ScriptLine> script, int start, int end) {
-        // ... (same as before)
+        int index = start;
+        while (index < end && !stopExecution) {
+            if (checkpointFile != null && System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+                saveCheckpoint(index);
+            }
+            executingIndex = index;
+            ScriptLine line = script.get(index);
+            index = executeLine(script, line, index);
+
+            if (watching && pendingProgram != null && isSwapPoint(line)) {
+                boolean toEnd = end == script.size();
+                index = swapProgram(index);
+                script = runningProgram.lines;
+                if (toEnd) {
+                    end = script.size();
+                }
+            }
+        }
+    }
+
+    private boolean isSwapPoint(ScriptLine line) {
+        return WAIT_PATTERN.matcher(line.command).matches()
+                || GOTO_PATTERN.matcher(line.command).matches()
+                || line.command.equalsIgnoreCase("ENDLOOP");
+    }
+
+    /**
+     * Replace the running program with the pending one, remapping every saved
+     * instruction index through the edits made since it was loaded
+     */
+    private int swapProgram(int nextIndex) {
+        ScriptProgram next;
+        synchronized (swapLock) {
+            next = pendingProgram;
+            pendingProgram = null;
+        }
+
+        int mapped = next.mapIndex(runningProgram, nextIndex);
+        if (mapped < 0) {
+            // Lost track of the edits, fall back to the top of the new version
+            callStack.clear();
+            inLoop = false;
+            mapped = 0;
+        } else {
+            for (int i = 0; i < callStack.size(); i++) {
+                callStack.set(i, next.mapIndex(runningProgram, callStack.get(i)));
+            }
+            if (inLoop) {
+                loopStart = next.mapIndex(runningProgram, loopStart);
+            }
+        }
+
+        next.detach();
+        runningProgram = next;
+        labels.clear();
+        labels.putAll(next.labels);
+        System.out.println("  ⟳ Swapped in new version, continuing at line "
+                + (mapped < next.lines.size() ? next.lines.get(mapped).lineNumber : next.lines.size()));
+        return mapped;
+    }
+
+    /**
+     * Run a script and keep reloading it from disk until the user presses Enter
+     */
+    private void watchScriptFile(String filename) {
+        Path path = Paths.get(filename);
+        ScriptProgram program;
+        try {
+            program = ScriptProgram.parse(Files.readAllLines(path));
+        } catch (IOException e) {
+            System.out.println("✗ Could not read script: " + e.getMessage());
+            return;
+        }
+
+        try (ScriptWatcher watcher = new ScriptWatcher(path, program, this::offerProgram)) {
+            watching = true;
+            watcher.start();
+            Thread runner = new Thread(() -> runWatched(program), "script-runner");
+            runner.setDaemon(true);
+            runner.start();
+
+            System.out.println("\n👁 Watching " + filename + " - save to reload, press Enter to stop");
+            scanner.nextLine();
+
+            synchronized (swapLock) {
+                watching = false;
+                stopExecution = true;
+                swapLock.notifyAll();
+            }
+            // Wait it out even if it is mid-reconnect; it shares this object's state with the next run
+            runner.join();
+        } catch (IOException e) {
+            System.out.println("✗ Could not watch script: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watching = false;
+        }
+    }
+
+    private void runWatched(ScriptProgram program) {
+        runningProgram = program;
+        while (watching) {
+            resetExecutionState();
+            labels.putAll(runningProgram.labels);
+            System.out.println("\n▶ Executing (" + runningProgram.lines.size() + " lines)");
+            executeScript(runningProgram.lines, 0, runningProgram.lines.size());
+
+            ScriptProgram next;
+            synchronized (swapLock) {
+                while (watching && pendingProgram == null) {
+                    try {
+                        swapLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                next = pendingProgram;
+                pendingProgram = null;
+            }
+            if (next == null) {
+                break;
+            }
+            System.out.println("✓ Script finished, rerunning new version");
+            next.detach();
+            runningProgram = next;
+        }
+        runningProgram = null;
+    }
+
+    private void offerProgram(ScriptProgram program) {
+        synchronized (swapLock) {
+            pendingProgram = program;
+            swapLock.notifyAll();
+        }
+    }
+
+    /**
+     * Run script source with device commands written to the given link
+     * instead of the serial port (used for scripts submitted to the server)
+     */
+    void runScript(List<String> source, OutputStream link) {
+        serialOut = link;
+        connected = true;
+        resetExecutionState();
+        ScriptProgram program = ScriptProgram.parse(source);
+        labels.putAll(program.labels);
+        executeScript(program.lines, 0, program.lines.size());
+        connected = false;
+    }
+
+    /**
+     * Run script source for a server client: ECHO text and errors go to the
+     * given callbacks, nothing is printed on the server's console
+     */
+    void runScript(List<String> source, OutputStream link, Consumer<String> echo, Consumer<String> errors) {
+        quiet = true;
+        echoSink = echo;
+        errorSink = errors;
+        runScript(source, link);
+    }
+
+    /**
+     * Run script source against a simulated device: silent, and WAITs return
+     * at once. Script errors go to the given callback.
+     */
+    void runSimulated(List<String> source, OutputStream link, Consumer<String> errors) {
+        quiet = true;
+        virtualTime = true;
+        errorSink = errors;
+        runScript(source, link);
+    }
+
+    /**
+     * Stop a running script from another thread
+     */
+    void requestStop() {
+        synchronized (swapLock) {
+            stopExecution = true;
+            swapLock.notifyAll();
+        }
+    }
+
+    /**
+     * --server [serial-port | --loopback] [tcp-port] [--trace file.vcd]
+     */
+    private void runServer(String[] args) throws IOException {
+        String traceFile = null;
+        List<String> rest = new ArrayList<>(Arrays.asList(args));
+        int traceAt = rest.indexOf("--trace");
+        if (traceAt >= 0 && traceAt + 1 < rest.size()) {
+            traceFile = rest.remove(traceAt + 1);
+            rest.remove(traceAt);
+            args = rest.toArray(new String[0]);
+        }
+        if (args.length == 0 || traceAt >= 0 && traceFile == null) {
+            System.out.println("Usage: --server <serial-port> [tcp-port] [--trace <file.vcd>]");
+            System.out.println("       --server --loopback [tcp-port] [--trace <file.vcd>]");
+            return;
+        }
+
+        int tcpPort = CommandServer.DEFAULT_PORT;
+        if (args.length > 1) {
+            try {
+                tcpPort = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.out.println("✗ Invalid TCP port: " + args[1]);
+                return;
+            }
+        }
+
+        InputStream deviceIn;
+        OutputStream deviceOut;
+        if (args[0].equals("--loopback")) {
+            LoopbackDevice device = new LoopbackDevice();
+            deviceIn = device.getInputStream();
+            deviceOut = device.getOutputStream();
+            System.out.println("Using loopback device (echoes every command)");
+        } else {
+            connect(args[0]);
+            if (!connected) {
+                return;
+            }
+            // Opening the port resets the Nano; lines sent during boot are lost
+            pause(BOOT_DELAY_MS);
+            deviceIn = serialIn;
+            deviceOut = serialOut;
+        }
+
+        try (CommandServer server = new CommandServer(deviceIn, deviceOut, tcpPort)) {
+            if (traceFile != null) {
+                handleTraceCommand("trace " + traceFile);
+                // The server only ends with Ctrl+C, flush the trace on the way out
+                Runtime.getRuntime().addShutdownHook(new Thread(this::stopTrace));
+                server.setTrace(portTrace);
+            }
+            System.out.println("✓ Serving on 127.0.0.1:" + server.getPort() + " - Ctrl+C to stop");
+            server.serve();
+        }
     }
 
     private void executeStepByStep(String filename) {
         // ... (same as before)
     }
 
-    private boolean evaluateCondition() {
-        // ... (same as before)
-        return true;
+    private boolean evaluateCondition(String condition) {
+        condition = condition.trim();
+        if (condition.equalsIgnoreCase("TRUE")) {
+            return true;
+        } else if (condition.equalsIgnoreCase("FALSE")) {
+            return false;
+        }
+
+        int eq = condition.indexOf('=');
+        if (eq < 0) {
+            return false;
+        }
+        String name = condition.substring(0, eq).trim();
+        String expected = condition.substring(eq + 1).trim();
+        String actual = variables.containsKey(name) ? variables.get(name) : name;
+        return actual.equalsIgnoreCase(expected);
     }
 
     private void sendToArduino(String command) {
         if (!connected) {
-            System.out.println("  ✗ Not connected to Arduino");
+            scriptError("Not connected to Arduino");
             return;
         }
 
-        try {
-            String toSend = command.trim();
-            if (!toSend.endsWith("\r") && !toSend.endsWith("\n")) {
-                toSend += "\r\n";
-            }
+        String trimmed = command.trim();
+        String toSend = trimmed;
+        if (!toSend.endsWith("\r") && !toSend.endsWith("\n")) {
+            toSend += "\r\n";
+        }
 
+        if (!quiet) {
             System.out.println("  → Arduino: " + command);
-            serialOut.write(toSend.getBytes());
-            serialOut.flush();
+        }
+        while (true) {
+            try {
+                sendRaw(toSend);
+                break;
+            } catch (IOException e) {
+                scriptError("Send failed: " + e.getMessage());
+                if (!reconnect()) {
+                    disconnect();
+                    linkLost = true;
+                    stopExecution = true;
+                    return;
+                }
+            }
+        }
 
-        } catch (IOException e) {
-            System.out.println("  ✗ Send failed: " + e.getMessage());
-            disconnect();
+        String key = deviceStateKey(trimmed);
+        if (key != null) {
+            // Move to the end so a restore replays in the order things were last sent
+            deviceState.remove(key);
+            deviceState.put(key, trimmed);
+        }
+        PortTrace trace = portTrace;
+        if (trace != null) {
+            trace.recordCommand(trimmed);
         }
     }
 
     private void sendRaw(String data) throws IOException {
-        // ... (same as before)
+        serialOut.write(data.getBytes());
+        serialOut.flush();
+    }
+
+    /**
+     * Which piece of device state a command sets, or null if it sets none
+     */
+    static String deviceStateKey(String command) {
+        if (command.startsWith("set ") && command.length() > 4) {
+            return "set " + command.charAt(4);
+        } else if (command.equals("start") || command.equals("stop")) {
+            return "chaser";
+        } else if (command.equals("left") || command.equals("right")) {
+            return "direction";
+        } else if (command.startsWith("speed ")) {
+            return "speed";
+        }
+        return null;
+    }
+
+    /**
+     * Reopen a dropped serial port with exponential backoff and put the
+     * device back into the state the script last left it in
+     */
+    private boolean reconnect() {
+        if (serialPort == null || portName == null) {
+            return false;
+        }
+        if (checkpointFile != null) {
+            saveCheckpoint(executingIndex);
+        }
+
+        String name = portName;
+        disconnect();
+        long delay = RECONNECT_INITIAL_MS;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !stopExecution; attempt++) {
+            pause(delay);
+            if (stopExecution) {
+                break;
+            }
+            System.out.println("  ⟳ Reconnecting to " + name + " (attempt " + attempt + "/" + RECONNECT_ATTEMPTS + ")");
+            connect(name);
+            if (connected) {
+                pause(BOOT_DELAY_MS);
+                if (stopExecution) {
+                    disconnect();
+                    break;
+                }
+                try {
+                    restoreDeviceState();
+                    return true;
+                } catch (IOException e) {
+                    System.out.println("  ✗ Restore failed: " + e.getMessage());
+                    disconnect();
+                }
+            }
+            delay = Math.min(delay * 2, RECONNECT_MAX_MS);
+        }
+        return false;
+    }
+
+    private void restoreDeviceState() throws IOException {
+        PortTrace trace = portTrace;
+        for (String command : deviceState.values()) {
+            System.out.println("  ↺ Restoring: " + command);
+            sendRaw(command + "\r\n");
+            if (trace != null) {
+                trace.recordCommand(command);
+            }
+            awaitReply();
+        }
+    }
+
+    /**
+     * Wait for the PIC to answer the line just sent and go quiet again. It
+     * polls a 2-byte receive FIFO and never clears an overrun, so a line
+     * that arrives while it is still replying locks up its UART.
+     */
+    private void awaitReply() throws IOException {
+        long deadline = System.currentTimeMillis() + REPLY_TIMEOUT_MS;
+        long lastByte = 0;
+        while (System.currentTimeMillis() < deadline) {
+            if (serialIn.available() > 0) {
+                while (serialIn.available() > 0) {
+                    serialIn.read();
+                }
+                lastByte = System.currentTimeMillis();
+            } else if (lastByte != 0 && System.currentTimeMillis() - lastByte >= REPLY_QUIET_MS) {
+                return;
+            } else {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sleep, but return early once the run is stopped
+     */
+    private void pause(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (swapLock) {
+            long remaining;
+            while (!stopExecution && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    swapLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopExecution = true;
+                }
+            }
+        }
     }
 
     private void startSerialReader() {
@@ -709,7 +1592,31 @@ public class Main {
     }
 
     private void disconnect() {
-        // ... (same as before)
+        if (!connected) {
+            return;
+        }
+        connected = false;
+
+        try {
+            if (serialIn != null) {
+                serialIn.close();
+            }
+            if (serialOut != null) {
+                serialOut.close();
+            }
+        } catch (IOException ignored) {
+        }
+
+        if (serialPort != null) {
+            try {
+                serialPort.getClass().getMethod("closePort").invoke(serialPort);
+            } catch (Exception ignored) {
+            }
+            serialPort = null;
+        }
+        if (!quiet) {
+            System.out.println("✓ Disconnected");
+        }
     }
 
     private void cleanup() {
@@ -727,7 +1634,14 @@ public class Main {
     }
 
     private void resetExecutionState() {
-        // ... (same as before)
+        labels.clear();
+        variables.clear();
+        callStack.clear();
+        loopCounter = 0;
+        loopMax = 0;
+        loopStart = 0;
+        inLoop = false;
+        stopExecution = false;
     }
 
     private void commandLoop() {
@@ -766,16 +1680,38 @@ public class Main {
         }
     }
 
-    private static class ScriptLine {
-        // ... (same as before)
+    static class ScriptLine {
         final String original;
         final String command;
         final int lineNumber;
+        final String label;
 
         ScriptLine(String original, String command, int lineNumber) {
+            this(original, command, lineNumber, null);
+        }
+
+        ScriptLine(String original, String command, int lineNumber, String label) {
             this.original = original;
             this.command = command;
             this.lineNumber = lineNumber;
+            this.label = label;
+        }
+
+        /**
+         * Comments and blank lines keep their slot with an empty command so
+         * indices stay aligned with the source file
+         */
+        static ScriptLine parse(String original, int lineNumber) {
+            String trimmed = original.trim();
+            if (COMMENT_PATTERN.matcher(trimmed).matches() || EMPTY_PATTERN.matcher(trimmed).matches()) {
+                return new ScriptLine(original, "", lineNumber);
+            }
+            Matcher m = LABEL_PATTERN.matcher(trimmed);
+            return new ScriptLine(original, trimmed, lineNumber, m.matches() ? m.group(2) : null);
+        }
+
+        ScriptLine withLineNumber(int newLineNumber) {
+            return new ScriptLine(original, command, newLineNumber, label);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,255 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the port writes the host sends to the PIC and streams them to a
+ * Value Change Dump file (GTKWave etc.).
+ *
+ * The send path only stores a timestamp and a packed value into preallocated
+ * ring slots; a background thread formats them into the file. Nothing is
+ * allocated per event on either side.
+ */
+class PortTrace implements Closeable {
+    static final int PIC_A = 0;
+    static final int PIC_B = 1;
+    static final int PIC_C = 2;
+    static final int PIC_D = 3;
+    static final int CHASER_RUN = 4;
+    static final int CHASER_DIR = 5;
+    static final int CHASER_SPEED = 6;
+
+    private static final String[] NAMES = {
+            "port_a", "port_b", "port_c", "port_d", "chaser_run", "chaser_right", "chaser_speed_ms"
+    };
+    // PORTC writes only touch RC0..RC2, see the set command in newmain.c
+    private static final int[] WIDTHS = {8, 8, 3, 8, 1, 1, 16};
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+
+    private final long[] times = new long[CAPACITY];
+    private final int[] events = new int[CAPACITY];   // signal << 24 | value
+    private volatile long head = 0;                    // next slot to fill, advanced under the lock
+    private volatile long tail = 0;                    // next slot to write, advanced by the writer
+    private volatile boolean closed = false;
+
+    private final Writer out;
+    private final Thread writerThread;
+    private final long startNanos;
+    private final char[] scratch = new char[24];
+    private final int[] lastValue = new int[NAMES.length];
+    private long lastTime = -1;
+    private long recorded = 0;
+
+    PortTrace(Path file) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.US_ASCII),
+                1 << 16);
+        writeHeader();
+        startNanos = System.nanoTime();
+        writerThread = new Thread(this::drain, "vcd-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Record the effect of one command sent to the PIC, if it has one
+     */
+    void recordCommand(String command) {
+        int len = command.length();
+        if (command.startsWith("set ") && len > 5) {
+            int signal = command.charAt(4) - 'A';
+            if (signal < PIC_A || signal > PIC_D) {
+                return;
+            }
+            int i = command.charAt(5) == ' ' ? 6 : 5;
+            int value = parseValue(command, i);
+            if (value >= 0) {
+                record(signal, signal == PIC_C ? value & 0x07 : value);
+            }
+        } else if (command.equals("start")) {
+            record(CHASER_RUN, 1);
+        } else if (command.equals("stop")) {
+            record(CHASER_RUN, 0);
+        } else if (command.equals("left")) {
+            record(CHASER_DIR, 0);
+        } else if (command.equals("right")) {
+            record(CHASER_DIR, 1);
+        } else if (command.startsWith("speed ")) {
+            int value = 0;
+            for (int i = 6; i < len && command.charAt(i) >= '0' && command.charAt(i) <= '9'; i++) {
+                value = value * 10 + command.charAt(i) - '0';
+                if (value > 0xFFFF) {
+                    return;
+                }
+            }
+            if (value > 10 && value < 2000) {
+                record(CHASER_SPEED, value);
+            }
+        }
+    }
+
+    /**
+     * Same rules as the firmware: b/B prefix is binary, otherwise hex
+     * (a leading decimal digit is also a hex digit there)
+     */
+    private static int parseValue(String s, int i) {
+        int len = s.length();
+        if (i >= len) {
+            return -1;
+        }
+        int value = 0;
+        char c = s.charAt(i);
+        if (c == 'b' || c == 'B') {
+            for (i++; i < len && (s.charAt(i) == '0' || s.charAt(i) == '1'); i++) {
+                value = (value << 1) | (s.charAt(i) - '0');
+            }
+            return value & 0xFF;
+        }
+        if (c == '0' && i + 1 < len && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            i += 2;
+        } else if (Character.digit(c, 16) < 0) {
+            return -1;
+        }
+        int d;
+        for (; i < len && (d = Character.digit(s.charAt(i), 16)) >= 0; i++) {
+            value = (value << 4) | d;
+        }
+        return value & 0xFF;
+    }
+
+    void record(int signal, int value) {
+        synchronized (this) {
+            while (head - tail == CAPACITY) {
+                // Writer is behind; wait for it rather than lose events
+                if (closed) {
+                    return;
+                }
+                Thread.yield();
+            }
+            int slot = (int) head & MASK;
+            times[slot] = System.nanoTime() - startNanos;
+            events[slot] = signal << 24 | (value & 0xFFFFFF);
+            head = head + 1;
+        }
+    }
+
+    long getRecorded() {
+        return recorded;
+    }
+
+    // ========== WRITER THREAD ==========
+
+    private void drain() {
+        boolean dirty = false;
+        try {
+            while (true) {
+                long available = head;
+                long next = tail;
+                if (next == available) {
+                    if (closed) {
+                        break;
+                    }
+                    if (dirty) {
+                        out.flush();
+                        dirty = false;
+                    }
+                    LockSupport.parkNanos(1_000_000);
+                    continue;
+                }
+                for (; next < available; next++) {
+                    int slot = (int) next & MASK;
+                    writeChange(times[slot], events[slot]);
+                }
+                recorded += available - tail;
+                tail = available;
+                dirty = true;
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("  ✗ VCD write failed: " + e.getMessage());
+            closed = true;
+            tail = head;
+        }
+    }
+
+    private void writeChange(long time, int event) throws IOException {
+        int signal = event >>> 24;
+        int value = event & 0xFFFFFF;
+        if (lastValue[signal] == value) {
+            return;
+        }
+        lastValue[signal] = value;
+
+        if (time != lastTime) {
+            out.write('#');
+            writeDecimal(time);
+            out.write('\n');
+            lastTime = time;
+        }
+        writeValue(signal, value);
+    }
+
+    private void writeValue(int signal, int value) throws IOException {
+        if (WIDTHS[signal] == 1) {
+            out.write(value == 0 ? '0' : '1');
+        } else {
+            int pos = scratch.length;
+            do {
+                scratch[--pos] = (char) ('0' + (value & 1));
+                value >>>= 1;
+            } while (value != 0);
+            out.write('b');
+            out.write(scratch, pos, scratch.length - pos);
+            out.write(' ');
+        }
+        out.write('!' + signal);
+        out.write('\n');
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        int pos = scratch.length;
+        do {
+            scratch[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        out.write(scratch, pos, scratch.length - pos);
+    }
+
+    private void writeHeader() throws IOException {
+        out.write("$date " + new Date() + " $end\n");
+        out.write("$version TTL Knight host trace $end\n");
+        out.write("$timescale 1 ns $end\n");
+        out.write("$scope module pic $end\n");
+        for (int i = 0; i < NAMES.length; i++) {
+            out.write("$var wire " + WIDTHS[i] + " " + (char) ('!' + i) + " " + NAMES[i] + " $end\n");
+        }
+        out.write("$upscope $end\n");
+        out.write("$enddefinitions $end\n");
+
+        // Nothing is known about the device until the first write
+        out.write("$dumpvars\n");
+        for (int i = 0; i < NAMES.length; i++) {
+            out.write(WIDTHS[i] == 1 ? "x" : "bx ");
+            out.write('!' + i);
+            out.write('\n');
+            lastValue[i] = -1;
+        }
+        out.write("$end\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every *.txt script in a directory against its own simulated tester,
+ * in parallel, and compares final port state plus reply transcript with
+ * the script's .golden file.
+ *
+ * WAITs take no time in simulation, so a suite runs as fast as the
+ * executors can go.
+ */
+class RegressionRunner {
+    private static final long SCRIPT_TIMEOUT_MS = 10000;   // runaway loops are stopped after this
+
+    private final Path suite;
+    private final boolean update;
+
+    RegressionRunner(Path suite, boolean update) {
+        this.suite = suite;
+        this.update = update;
+    }
+
+    /**
+     * Returns true if every script passed (or had its golden file written)
+     */
+    boolean run() throws IOException {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(suite)) {
+            scripts = files.filter(p -> p.getFileName().toString().endsWith(".txt") && Files.isRegularFile(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (scripts.isEmpty()) {
+            System.out.println("No *.txt scripts in " + suite);
+            return false;
+        }
+
+        int threads = Math.min(scripts.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        System.out.println("\nRunning " + scripts.size() + " script(s) on " + threads + " thread(s)"
+                + (update ? ", updating golden files" : ""));
+
+        long started = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path script : scripts) {
+            futures.add(pool.submit(() -> runOne(script, watchdog)));
+        }
+
+        int failed = 0;
+        long scriptNanos = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            Result result;
+            try {
+                result = futures.get(i).get();
+            } catch (ExecutionException e) {
+                result = new Result(scripts.get(i), "ERROR", 0, String.valueOf(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            scriptNanos += result.nanos;
+            if (!result.passed()) {
+                failed++;
+            }
+            System.out.printf("  %s %-8s %-40s %8.2f ms%s%n", result.passed() ? "✓" : "✗", result.status,
+                    result.script.getFileName(), result.nanos / 1e6,
+                    result.detail.isEmpty() ? "" : "  " + result.detail);
+        }
+        pool.shutdownNow();
+        watchdog.shutdownNow();
+
+        double wall = (System.nanoTime() - started) / 1e6;
+        System.out.printf("%n%d passed, %d failed in %.0f ms (%.0f ms of script time)%n",
+                futures.size() - failed, failed, wall, scriptNanos / 1e6);
+        return failed == 0;
+    }
+
+    private Result runOne(Path script, ScheduledExecutorService watchdog) throws IOException {
+        List<String> source = Files.readAllLines(script);
+        SimulatedTester tester = new SimulatedTester();
+        Main executor = new Main();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> guard = watchdog.schedule(() -> {
+            timedOut.set(true);
+            executor.requestStop();
+        }, SCRIPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // Errors go into the report line rather than interleaving on stdout from every thread
+        List<String> errors = new ArrayList<>();
+        long started = System.nanoTime();
+        executor.runSimulated(source, tester.getOutputStream(), errors::add);
+        long nanos = System.nanoTime() - started;
+        guard.cancel(false);
+
+        if (timedOut.get()) {
+            return new Result(script, "TIMEOUT", nanos, "stopped after " + SCRIPT_TIMEOUT_MS + " ms");
+        }
+        if (!errors.isEmpty()) {
+            // A script that aborted proves nothing; never pass it or bless its output as golden
+            return new Result(script, "ERROR", nanos, "script error: " + String.join("; ", errors));
+        }
+
+        String actual = "# state\n" + tester.describeState() + "# transcript\n" + tester.drainTranscript();
+        Path golden = script.resolveSibling(script.getFileName() + ".golden");
+        if (update || !Files.exists(golden)) {
+            boolean existed = Files.exists(golden);
+            Files.write(golden, actual.getBytes(StandardCharsets.US_ASCII));
+            return new Result(script, existed ? "UPDATED" : "NEW", nanos, "");
+        }
+
+        String expected = new String(Files.readAllBytes(golden), StandardCharsets.US_ASCII).replace("\r\n", "\n");
+        if (expected.equals(actual)) {
+            return new Result(script, "PASS", nanos, "");
+        }
+        return new Result(script, "FAIL", nanos, firstDifference(expected, actual));
+    }
+
+    private static String firstDifference(String expected, String actual) {
+        String[] want = expected.split("\n", -1);
+        String[] got = actual.split("\n", -1);
+        for (int i = 0; i < Math.max(want.length, got.length); i++) {
+            String w = i < want.length ? want[i] : "<end>";
+            String g = i < got.length ? got[i] : "<end>";
+            if (!w.equals(g)) {
+                return "golden line " + (i + 1) + ": expected '" + w + "', got '" + g + "'";
+            }
+        }
+        return "";
+    }
+
+    private static class Result {
+        final Path script;
+        final String status;
+        final long nanos;
+        final String detail;
+
+        Result(Path script, String status, long nanos, String detail) {
+            this.script = script;
+            this.status = status;
+            this.nanos = nanos;
+            this.detail = detail;
+        }
+
+        boolean passed() {
+            return !status.equals("FAIL") && !status.equals("ERROR") && !status.equals("TIMEOUT");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Snapshot of a running script: where it is, its variables and call/loop
+ * state, and the last port values sent to the device. Stored as a
+ * properties file next to the script so a killed run can be resumed.
+ */
+class ScriptCheckpoint {
+    String script;
+    int scriptHash;
+    int index;
+    Map<String, String> variables = new TreeMap<>();
+    List<Integer> callStack = new ArrayList<>();
+    int loopCounter;
+    int loopMax;
+    int loopStart;
+    boolean inLoop;
+    Map<String, String> deviceState = new LinkedHashMap<>();
+    String portName;
+    int baudRate;
+    long savedAt;
+
+    static Path pathFor(Path script) {
+        return script.resolveSibling(script.getFileName() + ".ckpt");
+    }
+
+    /**
+     * Write to a temp file and move it over the old checkpoint, so a crash
+     * mid-write never leaves a truncated one behind
+     */
+    void save(Path file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("script", script);
+        props.setProperty("scriptHash", String.valueOf(scriptHash));
+        props.setProperty("index", String.valueOf(index));
+        props.setProperty("loop.counter", String.valueOf(loopCounter));
+        props.setProperty("loop.max", String.valueOf(loopMax));
+        props.setProperty("loop.start", String.valueOf(loopStart));
+        props.setProperty("loop.active", String.valueOf(inLoop));
+        props.setProperty("port", portName == null ? "" : portName);
+        props.setProperty("baud", String.valueOf(baudRate));
+        props.setProperty("savedAt", String.valueOf(savedAt));
+        for (Map.Entry<String, String> entry : variables.entrySet()) {
+            props.setProperty("var." + entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < callStack.size(); i++) {
+            props.setProperty("call." + i, String.valueOf(callStack.get(i)));
+        }
+        int i = 0;
+        for (String command : deviceState.values()) {
+            props.setProperty("device." + i++, command);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, "TTL Knight script checkpoint");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ScriptCheckpoint load(Path file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+
+        ScriptCheckpoint checkpoint = new ScriptCheckpoint();
+        try {
+            checkpoint.script = required(props, "script");
+            checkpoint.scriptHash = Integer.parseInt(required(props, "scriptHash"));
+            checkpoint.index = Integer.parseInt(required(props, "index"));
+            checkpoint.loopCounter = Integer.parseInt(props.getProperty("loop.counter", "0"));
+            checkpoint.loopMax = Integer.parseInt(props.getProperty("loop.max", "0"));
+            checkpoint.loopStart = Integer.parseInt(props.getProperty("loop.start", "0"));
+            checkpoint.inLoop = Boolean.parseBoolean(props.getProperty("loop.active", "false"));
+            checkpoint.portName = props.getProperty("port", "");
+            checkpoint.baudRate = Integer.parseInt(props.getProperty("baud", "9600"));
+            checkpoint.savedAt = Long.parseLong(props.getProperty("savedAt", "0"));
+
+            for (int i = 0; props.containsKey("call." + i); i++) {
+                checkpoint.callStack.add(Integer.parseInt(props.getProperty("call." + i)));
+            }
+            for (int i = 0; props.containsKey("device." + i); i++) {
+                String command = props.getProperty("device." + i);
+                checkpoint.deviceState.put(Main.deviceStateKey(command), command);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt checkpoint " + file + ": " + e.getMessage());
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith("var.")) {
+                checkpoint.variables.put(name.substring(4), props.getProperty(name));
+            }
+        }
+        return checkpoint;
+    }
+
+    private static String required(Properties props, String key) throws IOException {
+        String value = props.getProperty(key);
+        if (value == null) {
+            throw new IOException("Checkpoint is missing '" + key + "'");
+        }
+        return value;
+    }
+}
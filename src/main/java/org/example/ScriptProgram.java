@@ -0,0 +1,153 @@
+package org.example;
+
+import java.util.*;
+
+/**
+ * Parsed script with its label table. A new version can be derived from an
+ * edited source by re-parsing only the lines that changed.
+ */
+class ScriptProgram {
+    final List<String> source;
+    final List<Main.ScriptLine> lines;
+    final Map<String, Integer> labels;
+
+    // Edit that produced this version: base[prefix, oldEnd) was replaced by this[prefix, newEnd)
+    private ScriptProgram base;
+    private final int prefix;
+    private final int oldEnd;
+    private final int newEnd;
+
+    private ScriptProgram(List<String> source, List<Main.ScriptLine> lines, Map<String, Integer> labels,
+                          ScriptProgram base, int prefix, int oldEnd, int newEnd) {
+        this.source = source;
+        this.lines = lines;
+        this.labels = labels;
+        this.base = base;
+        this.prefix = prefix;
+        this.oldEnd = oldEnd;
+        this.newEnd = newEnd;
+    }
+
+    /**
+     * Full parse of a script source
+     */
+    static ScriptProgram parse(List<String> source) {
+        List<Main.ScriptLine> lines = new ArrayList<>(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            lines.add(Main.ScriptLine.parse(source.get(i), i + 1));
+        }
+        return new ScriptProgram(new ArrayList<>(source), lines, resolveLabels(lines),
+                null, 0, 0, source.size());
+    }
+
+    /**
+     * Derive a new version from edited source. Unchanged lines at the top and
+     * bottom are reused, only the region in between goes through the parser.
+     */
+    ScriptProgram reparse(List<String> newSource) {
+        int oldSize = source.size();
+        int newSize = newSource.size();
+
+        int head = 0;
+        while (head < oldSize && head < newSize && source.get(head).equals(newSource.get(head))) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < oldSize - head && tail < newSize - head
+                && source.get(oldSize - 1 - tail).equals(newSource.get(newSize - 1 - tail))) {
+            tail++;
+        }
+        int regionEnd = oldSize - tail;
+        int newRegionEnd = newSize - tail;
+        int delta = newRegionEnd - regionEnd;
+
+        List<Main.ScriptLine> newLines = new ArrayList<>(newSize);
+        newLines.addAll(lines.subList(0, head));
+        for (int i = head; i < newRegionEnd; i++) {
+            newLines.add(Main.ScriptLine.parse(newSource.get(i), i + 1));
+        }
+        for (int i = regionEnd; i < oldSize; i++) {
+            Main.ScriptLine line = lines.get(i);
+            newLines.add(delta == 0 ? line : line.withLineNumber(i + delta + 1));
+        }
+
+        // Labels outside the edit only move; labels inside it are re-resolved
+        Map<String, Integer> newLabels = new HashMap<>();
+        boolean dropped = false;
+        for (Map.Entry<String, Integer> entry : labels.entrySet()) {
+            int index = entry.getValue();
+            if (index < head) {
+                newLabels.put(entry.getKey(), index);
+            } else if (index >= regionEnd) {
+                newLabels.put(entry.getKey(), index + delta);
+            } else {
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            // A removed definition may have hidden a duplicate elsewhere in the file
+            newLabels = resolveLabels(newLines);
+        } else {
+            for (int i = head; i < newRegionEnd; i++) {
+                String label = newLines.get(i).label;
+                if (label != null) {
+                    newLabels.merge(label, i, Math::min);
+                }
+            }
+        }
+
+        return new ScriptProgram(new ArrayList<>(newSource), newLines, newLabels,
+                this, head, regionEnd, newRegionEnd);
+    }
+
+    /**
+     * Translate an instruction index of {@code running} into this version.
+     * Indices inside an edited region land on the start of that region.
+     * Returns -1 if this version was not derived from {@code running}.
+     */
+    int mapIndex(ScriptProgram running, int index) {
+        if (this == running) {
+            return index;
+        }
+        if (base == null) {
+            return -1;
+        }
+        int baseIndex = base.mapIndex(running, index);
+        if (baseIndex < 0) {
+            return -1;
+        } else if (baseIndex < prefix) {
+            return baseIndex;
+        } else if (baseIndex >= oldEnd) {
+            return baseIndex + newEnd - oldEnd;
+        }
+        return prefix;
+    }
+
+    /**
+     * Drop the link to the previous version once nothing needs to be remapped from it
+     */
+    void detach() {
+        base = null;
+    }
+
+    /**
+     * First and last source line touched by the edit that produced this version
+     */
+    String describeEdit() {
+        if (newEnd <= prefix) {
+            return "removed line " + (prefix + 1) + (oldEnd - prefix > 1 ? "-" + oldEnd : "");
+        }
+        return "line " + (prefix + 1) + (newEnd - prefix > 1 ? "-" + newEnd : "");
+    }
+
+    private static Map<String, Integer> resolveLabels(List<Main.ScriptLine> lines) {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String label = lines.get(i).label;
+            if (label != null) {
+                labels.putIfAbsent(label, i);
+            }
+        }
+        return labels;
+    }
+}
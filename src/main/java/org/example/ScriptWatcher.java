@@ -0,0 +1,93 @@
+package org.example;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a script file and hands every saved version, incrementally
+ * re-parsed, to a consumer
+ */
+class ScriptWatcher implements Closeable {
+    // Quiet period that folds the burst of events from one save into a single reload
+    private static final long SETTLE_MS = 15;
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Consumer<ScriptProgram> onChange;
+    private ScriptProgram latest;
+    private Thread thread;
+
+    ScriptWatcher(Path file, ScriptProgram initial, Consumer<ScriptProgram> onChange) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.latest = initial;
+        this.onChange = onChange;
+        this.watchService = this.file.getFileSystem().newWatchService();
+        // Editors often save by writing a temp file and renaming it, so watch creates too
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    void start() {
+        thread = new Thread(this::run, "script-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || file.getFileName().equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.out.println("  ✗ Script directory is gone, watch stopped");
+                        return;
+                    }
+                    key = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watch mode ended
+        }
+    }
+
+    private void reload() {
+        List<String> source;
+        try {
+            source = Files.readAllLines(file);
+        } catch (IOException e) {
+            System.out.println("  ✗ Could not reload script: " + e.getMessage());
+            return;
+        }
+        // Nothing new, or caught between truncate and write of an in-place save
+        if (source.equals(latest.source) || source.isEmpty()) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        latest = latest.reparse(source);
+        System.out.printf("  ⟳ %s changed (%s), re-parsed in %.2f ms%n",
+                file.getFileName(), latest.describeEdit(), (System.nanoTime() - started) / 1e6);
+        onChange.accept(latest);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
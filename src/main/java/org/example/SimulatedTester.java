@@ -0,0 +1,248 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-process model of the tester as seen over USB. The Nano only bridges
+ * bytes to the PIC, so this follows process_message() in PIC_FW/newmain.c:
+ * set / start / stop / left / right / speed / help, plus the eer / eew /
+ * eesum EEPROM commands, with the PIC's echo and reply texts.
+ *
+ * The chaser is not animated: Port D keeps the last value written and the
+ * chaser settings are reported as state, so runs are deterministic.
+ */
+class SimulatedTester extends LoopbackDevice {
+    private static final int RX_BUF_SIZE = 32;
+    private static final String HEX = "0123456789ABCDEF";
+    private static final String HELP = "Commands:\r\n"
+            + " stop - freeze chaser\r\n"
+            + " start - resume chaser\r\n"
+            + " speed <ms> - set speed in ms\r\n"
+            + " left - force left direction\r\n"
+            + " right - force right direction\r\n"
+            + " set <port> <value> - set port (B,C,D) to value\r\n"
+            + " help - show this help\r\n"
+            + " eer <addr> <count> - read EEPROM (hex)\r\n"
+            + " eew <addr> <bytes> - write EEPROM, e.g. eew 10 A5FF\r\n"
+            + " eesum - EEPROM checksum\r\n"
+            + " set <port> <value> - set port (A,B,C,D) to value\r\n"
+            + " upp. port letters work"
+            + "RA>3F";
+
+    private final int[] ports = new int[4];          // PORTA..PORTD
+    private boolean running = true;
+    private boolean right = false;
+    private long speed = 120;
+    private final byte[] eeprom = new byte[EepromProgrammer.SIZE];
+    private boolean eepromUsed = false;
+    private boolean greeted = false;
+
+    SimulatedTester() {
+        Arrays.fill(eeprom, (byte) 0xFF);
+    }
+
+    @Override
+    protected String respond(String line) {
+        StringBuilder reply = new StringBuilder();
+        if (!greeted) {
+            reply.append("\r\nConnection detected.\r\n");
+            greeted = true;
+        }
+        // The PIC keeps at most RX_BUF_SIZE - 1 characters and echoes what it keeps
+        if (line.length() > RX_BUF_SIZE - 1) {
+            line = line.substring(0, RX_BUF_SIZE - 1);
+        }
+        reply.append(line).append("\r\n");
+        process(line, reply);
+        return reply.toString();
+    }
+
+    private void process(String line, StringBuilder reply) {
+        if (line.equals("stop")) {
+            running = false;
+            reply.append("chaser stopped\r\n");
+        } else if (line.equals("start")) {
+            running = true;
+            reply.append("chaser resumed\r\n");
+        } else if (line.equals("left")) {
+            right = false;
+            reply.append("direction = left\r\n");
+        } else if (line.equals("right")) {
+            right = true;
+            reply.append("direction = right\r\n");
+        } else if (line.equals("help")) {
+            reply.append(HELP);
+        } else if (line.startsWith("speed ")) {
+            long v = parseNumber(line, 6);
+            if (v > 10 && v < 2000) {
+                speed = v;
+                reply.append("speed set to ").append(line.substring(6)).append(" ms\r\n");
+            } else {
+                reply.append("invalid speed\r\n");
+            }
+        } else if (line.startsWith("eer ")) {
+            eepromRead(line.substring(4), reply);
+        } else if (line.startsWith("eew ")) {
+            eepromWrite(line.substring(4), reply);
+        } else if (line.equals("eesum")) {
+            eepromUsed = true;
+            int sum = EepromProgrammer.checksum(eeprom);
+            reply.append("EE SUM ").append(hex8(sum >> 8)).append(hex8(sum)).append("\r\n");
+        } else if (line.startsWith("set ")) {
+            set(line, reply);
+        } else {
+            reply.append("message was: ").append(line).append("\r\n");
+        }
+    }
+
+    private void set(String line, StringBuilder reply) {
+        if (line.length() < 6) {
+            reply.append("invalid set value\r\n");
+            return;
+        }
+        char port = line.charAt(4);
+        int i = line.charAt(5) == ' ' ? 6 : 5;
+        char first = i < line.length() ? line.charAt(i) : 0;
+
+        int value;
+        if (first == 'b' || first == 'B') {
+            value = parseBinary(line, i + 1);
+        } else if (Character.digit(first, 16) >= 0) {
+            // "0x" prefix or any hex digit; decimal never gets a look in, as on the PIC
+            value = parseHex(line, i);
+        } else {
+            reply.append("invalid set value\r\n");
+            return;
+        }
+        value &= 0xFF;
+
+        switch (port) {
+            case 'A':
+            case 'B':
+            case 'D':
+                ports[port - 'A'] = value;
+                break;
+            case 'C':
+                // RC6/RC7 carry the UART, the firmware only changes RC0..RC2
+                ports[2] = (ports[2] & 0xF8) | (value & 0x07);
+                break;
+            default:
+                reply.append("invalid port\r\n");
+                return;
+        }
+        reply.append("Port ").append(port).append(" set to 0x").append(hex8(value)).append("\r\n");
+    }
+
+    private void eepromRead(String args, StringBuilder reply) {
+        eepromUsed = true;
+        int addr = parseHex(args, 0) & 0xFF;
+        int space = args.indexOf(' ');
+        int count = space < 0 ? 0 : parseHex(args, skipSpaces(args, space)) & 0xFF;
+        while (count > 0 && addr < eeprom.length) {
+            reply.append("EE ").append(hex8(addr)).append(' ');
+            for (int n = 0; n < 16 && count > 0 && addr < eeprom.length; n++, count--, addr++) {
+                reply.append(hex8(eeprom[addr]));
+            }
+            reply.append("\r\n");
+        }
+    }
+
+    private void eepromWrite(String args, StringBuilder reply) {
+        eepromUsed = true;
+        int start = parseHex(args, 0) & 0xFF;
+        int addr = start;
+        int space = args.indexOf(' ');
+        int i = space < 0 ? args.length() : skipSpaces(args, space);
+        while (i + 1 < args.length() && Character.digit(args.charAt(i), 16) >= 0
+                && Character.digit(args.charAt(i + 1), 16) >= 0 && addr < eeprom.length) {
+            eeprom[addr++] = (byte) Integer.parseInt(args.substring(i, i + 2), 16);
+            i += 2;
+        }
+        reply.append("EE ").append(hex8(start));
+        if (i >= args.length() || Character.digit(args.charAt(i), 16) < 0) {
+            reply.append(" OK\r\n");
+        } else {
+            reply.append(" BAD ").append(hex8(addr)).append("\r\n");
+        }
+    }
+
+    /**
+     * Final device state, one "name = value" per line
+     */
+    String describeState() {
+        StringBuilder state = new StringBuilder();
+        for (int i = 0; i < ports.length; i++) {
+            state.append("pic.").append((char) ('A' + i)).append(" = ").append(hex8(ports[i])).append('\n');
+        }
+        state.append("chaser = ").append(running ? "running" : "stopped").append('\n');
+        state.append("direction = ").append(right ? "right" : "left").append('\n');
+        state.append("speed = ").append(speed).append('\n');
+        if (eepromUsed) {
+            state.append("eeprom = ");
+            for (byte b : eeprom) {
+                state.append(hex8(b));
+            }
+            state.append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Everything sent back so far, one non-empty line per line
+     */
+    String drainTranscript() throws IOException {
+        InputStream in = getInputStream();
+        byte[] bytes = new byte[in.available()];
+        int n = in.read(bytes, 0, bytes.length);
+        StringBuilder transcript = new StringBuilder();
+        for (String line : new String(bytes, 0, Math.max(n, 0), StandardCharsets.US_ASCII).split("[\r\n]+")) {
+            if (!line.isEmpty()) {
+                transcript.append(line).append('\n');
+            }
+        }
+        return transcript.toString();
+    }
+
+    // Number parsing with the firmware's rules: stop at the first invalid character
+
+    private static int parseHex(String s, int i) {
+        if (i + 1 < s.length() && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            i += 2;
+        }
+        int v = 0;
+        int d;
+        for (; i < s.length() && (d = Character.digit(s.charAt(i), 16)) >= 0; i++) {
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private static int parseBinary(String s, int i) {
+        int v = 0;
+        for (; i < s.length() && (s.charAt(i) == '0' || s.charAt(i) == '1'); i++) {
+            v = (v << 1) | (s.charAt(i) - '0');
+        }
+        return v;
+    }
+
+    private static long parseNumber(String s, int i) {
+        long v = 0;
+        for (; i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++) {
+            v = v * 10 + (s.charAt(i) - '0');
+        }
+        return v;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static String hex8(int value) {
+        return "" + HEX.charAt((value >> 4) & 0x0F) + HEX.charAt(value & 0x0F);
+    }
+}